@@ -1,3 +1,51 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
 // Noncompliant Example: Violates Single Responsibility Principle
 class Employee {
     private String name;
@@ -27,13 +75,34 @@ class EmployeeData {
         this.email = email;
     }
 
-    // Getters and setters
+    public String getName() { return name; }
+    public String getEmail() { return email; }
 }
 
 class EmployeeRepository {
     public void save(EmployeeData employee) {
         // Code to save employee to database
     }
+
+    public void saveAll(List<EmployeeData> employees) {
+        for (EmployeeData employee : employees) {
+            save(employee);
+        }
+    }
+
+    public EmployeeData findByEmail(String email) {
+        // Code to load employee from database
+        return null;
+    }
+
+    public List<EmployeeData> findAll() {
+        // Code to load all employees from database
+        return new ArrayList<>();
+    }
+
+    public void delete(String email) {
+        // Code to delete employee from database
+    }
 }
 
 class EmailService {
@@ -42,6 +111,1414 @@ class EmailService {
     }
 }
 
+// ======= EXTENSION: IN-MEMORY SECONDARY INDEXES =======
+
+// Repository that also keeps lookup indexes in memory.
+// Indexes are updated on every save, so queries never go to the database.
+// Writers are serialized and bump a version number before and after each change
+// (odd while a change is in progress). Readers run without locks and keep the result
+// only if the version was even and unchanged around the query, so every query sees
+// the indexes as of one committed version. A reader that keeps overlapping writes
+// falls back to the writer lock after a few attempts.
+class IndexedEmployeeRepository extends EmployeeRepository {
+    private static final int OPTIMISTIC_READ_ATTEMPTS = 4;
+
+    private final Map<String, EmployeeData> byEmail = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, Set<EmployeeData>> byName = new ConcurrentSkipListMap<>();
+    private final Map<String, Set<EmployeeData>> byDomain = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+
+    @Override
+    public synchronized void save(EmployeeData employee) {
+        super.save(employee);
+        version.incrementAndGet();
+        try {
+            index(employee);
+        } finally {
+            version.incrementAndGet();
+        }
+    }
+
+    private void index(EmployeeData employee) {
+        EmployeeData previous = byEmail.put(employee.getEmail(), employee);
+        // Add the new copy before removing the old one, so the employee never drops out of an index
+        byName.computeIfAbsent(employee.getName(), key -> ConcurrentHashMap.newKeySet()).add(employee);
+        byDomain.computeIfAbsent(domainOf(employee.getEmail()), key -> ConcurrentHashMap.newKeySet()).add(employee);
+        if (previous != null && previous != employee) {
+            removeFrom(byName, previous.getName(), previous);
+            removeFrom(byDomain, domainOf(previous.getEmail()), previous);
+        }
+    }
+
+    @Override
+    public synchronized void delete(String email) {
+        super.delete(email);
+        version.incrementAndGet();
+        try {
+            EmployeeData previous = byEmail.remove(email);
+            if (previous != null) {
+                removeFrom(byName, previous.getName(), previous);
+                removeFrom(byDomain, domainOf(previous.getEmail()), previous);
+            }
+        } finally {
+            version.incrementAndGet();
+        }
+    }
+
+    @Override
+    public EmployeeData findByEmail(String email) {
+        return byEmail.get(email); // a single lookup is always consistent
+    }
+
+    @Override
+    public List<EmployeeData> findAll() {
+        return read(() -> new ArrayList<>(byEmail.values()));
+    }
+
+    // All employees whose name starts with the given prefix, in name order
+    public List<EmployeeData> findByNamePrefix(String prefix) {
+        return read(() -> flatten(byName.subMap(prefix, true, prefix + Character.MAX_VALUE, false)));
+    }
+
+    // All employees with fromName <= name < toName, in name order
+    public List<EmployeeData> findByNameRange(String fromName, String toName) {
+        return read(() -> flatten(byName.subMap(fromName, true, toName, false)));
+    }
+
+    public List<EmployeeData> findByDomain(String domain) {
+        return read(() -> {
+            Set<EmployeeData> employees = byDomain.get(domain.toLowerCase());
+            return employees == null ? new ArrayList<>() : new ArrayList<>(employees);
+        });
+    }
+
+    public int size() {
+        return byEmail.size();
+    }
+
+    // Returns the version the indexes are at; odd while a write is in progress
+    public long getVersion() {
+        return version.get();
+    }
+
+    private <T> T read(Supplier<T> query) {
+        for (int attempt = 0; attempt < OPTIMISTIC_READ_ATTEMPTS; attempt++) {
+            long before = version.get();
+            if ((before & 1) == 0) {
+                T result = query.get();
+                if (version.get() == before) {
+                    return result;
+                }
+            }
+            Thread.onSpinWait();
+        }
+        synchronized (this) {
+            return query.get();
+        }
+    }
+
+    private static String domainOf(String email) {
+        return email.substring(email.indexOf('@') + 1).toLowerCase();
+    }
+
+    private static void removeFrom(Map<String, Set<EmployeeData>> index, String key, EmployeeData employee) {
+        index.computeIfPresent(key, (k, employees) -> {
+            employees.remove(employee);
+            return employees.isEmpty() ? null : employees;
+        });
+    }
+
+    private static List<EmployeeData> flatten(Map<String, Set<EmployeeData>> entries) {
+        List<EmployeeData> result = new ArrayList<>();
+        for (Set<EmployeeData> employees : entries.values()) {
+            result.addAll(employees);
+        }
+        return result;
+    }
+}
+
+// ======= EXTENSION: BULK CSV IMPORT =======
+
+// Imports "name,email" lines from a large CSV file in three stages:
+// parse (one memory-mapped chunk per thread) -> save in batches -> send welcome emails.
+// Stages are connected by bounded queues, so parsers wait when saving or emailing falls behind.
+class EmployeeCsvImporter {
+    private static final int BATCH_SIZE = 1000;
+    private static final long MAX_CHUNK_SIZE = 1L << 30; // a single mapping must stay below 2 GB
+    private static final List<EmployeeData> END_OF_INPUT = new ArrayList<>();
+
+    private final EmployeeRepository repository;
+    private final EmailService emailService;
+    private final int parserThreads;
+    private final int queueCapacity;
+
+    private final AtomicLong parsedRows = new AtomicLong();
+    private final AtomicLong rejectedRows = new AtomicLong();
+    private final AtomicLong savedRows = new AtomicLong();
+    private final AtomicLong emailedRows = new AtomicLong();
+
+    private final StageClock parseClock = new StageClock();
+    private final StageClock saveClock = new StageClock();
+    private final StageClock emailClock = new StageClock();
+
+    public EmployeeCsvImporter(EmployeeRepository repository, EmailService emailService,
+                               int parserThreads, int queueCapacity) {
+        this.repository = repository;
+        this.emailService = emailService;
+        this.parserThreads = parserThreads;
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void importFile(Path csv) throws IOException, InterruptedException {
+        BlockingQueue<List<EmployeeData>> saveQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<List<EmployeeData>> emailQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.READ)) {
+            List<MappedByteBuffer> chunks = mapChunks(channel);
+            ExecutorService parserPool = Executors.newFixedThreadPool(parserThreads);
+            ExecutorService stagePool = Executors.newFixedThreadPool(2); // saver and mailer
+            try {
+                // Both services report into one queue, so a failure in any stage is seen at once
+                BlockingQueue<Future<Void>> finished = new LinkedBlockingQueue<>();
+                CompletionService<Void> parsers = new ExecutorCompletionService<>(parserPool, finished);
+                CompletionService<Void> stages = new ExecutorCompletionService<>(stagePool, finished);
+
+                // The last parser to finish tells the saver there is no more input
+                AtomicInteger parsersLeft = new AtomicInteger(chunks.size());
+                if (chunks.isEmpty()) {
+                    saveQueue.put(END_OF_INPUT);
+                }
+                for (MappedByteBuffer chunk : chunks) {
+                    parsers.submit(() -> {
+                        parse(chunk, saveQueue);
+                        if (parsersLeft.decrementAndGet() == 0) {
+                            saveQueue.put(END_OF_INPUT);
+                        }
+                        return null;
+                    });
+                }
+                stages.submit(() -> saveBatches(saveQueue, emailQueue));
+                stages.submit(() -> emailBatches(emailQueue));
+
+                for (int i = 0; i < chunks.size() + 2; i++) {
+                    await(finished.take());
+                }
+            } finally {
+                // Interrupts stages blocked on a full queue when another stage has failed
+                parserPool.shutdownNow();
+                stagePool.shutdownNow();
+            }
+        }
+        printReport();
+    }
+
+    // Splits the file into roughly equal chunks that always end on a line boundary
+    private List<MappedByteBuffer> mapChunks(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(1, size / parserThreads));
+        List<MappedByteBuffer> chunks = new ArrayList<>();
+        long start = 0;
+        while (start < size) {
+            long end = nextLineStart(channel, Math.min(size, start + chunkSize));
+            chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long size = channel.size();
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    // Scans raw bytes for commas and line ends; only valid rows become Strings
+    private Void parse(MappedByteBuffer chunk, BlockingQueue<List<EmployeeData>> saveQueue)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        long waited = 0;
+        byte[] scratch = new byte[256];
+        List<EmployeeData> batch = new ArrayList<>(BATCH_SIZE);
+        int rejected = 0;
+        int lineStart = 0;
+        int limit = chunk.limit();
+        while (lineStart < limit) {
+            int comma = -1;
+            int at = -1;
+            int lineEnd = lineStart;
+            while (lineEnd < limit && chunk.get(lineEnd) != '\n') {
+                byte b = chunk.get(lineEnd);
+                if (b == ',' && comma < 0) comma = lineEnd;
+                if (b == '@' && comma >= 0) at = lineEnd;
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && chunk.get(lineEnd - 1) == '\r') lineEnd--;
+
+            // Same rule as the rest of the codebase: an email needs an '@' (the header row fails it)
+            if (comma > lineStart && at > comma + 1 && at < lineEnd - 1) {
+                String name = decode(chunk, lineStart, comma, scratch);
+                String email = decode(chunk, comma + 1, lineEnd, scratch);
+                batch.add(new EmployeeData(name, email));
+                if (batch.size() == BATCH_SIZE) {
+                    waited += handOff(batch, saveQueue);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            } else if (lineEnd > lineStart) {
+                rejected++;
+            }
+            lineStart = next;
+        }
+        if (!batch.isEmpty()) {
+            waited += handOff(batch, saveQueue);
+        }
+        rejectedRows.addAndGet(rejected);
+        long end = System.nanoTime();
+        parseClock.record(start, end, end - start - waited);
+        return null;
+    }
+
+    // Counts once per batch; returns the time spent waiting on a full queue
+    private long handOff(List<EmployeeData> batch, BlockingQueue<List<EmployeeData>> saveQueue)
+            throws InterruptedException {
+        parsedRows.addAndGet(batch.size());
+        long waitStart = System.nanoTime();
+        saveQueue.put(batch);
+        return System.nanoTime() - waitStart;
+    }
+
+    private static String decode(ByteBuffer chunk, int from, int to, byte[] scratch) {
+        int length = to - from;
+        byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+        chunk.get(from, bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private Void saveBatches(BlockingQueue<List<EmployeeData>> saveQueue,
+                             BlockingQueue<List<EmployeeData>> emailQueue) throws InterruptedException {
+        while (true) {
+            List<EmployeeData> batch = saveQueue.take();
+            if (batch == END_OF_INPUT) {
+                emailQueue.put(batch);
+                return null;
+            }
+            long workStart = System.nanoTime();
+            repository.saveAll(batch);
+            savedRows.addAndGet(batch.size());
+            long workEnd = System.nanoTime();
+            saveClock.record(workStart, workEnd, workEnd - workStart);
+            emailQueue.put(batch);
+        }
+    }
+
+    private Void emailBatches(BlockingQueue<List<EmployeeData>> emailQueue) throws InterruptedException {
+        while (true) {
+            List<EmployeeData> batch = emailQueue.take();
+            if (batch == END_OF_INPUT) return null;
+            long workStart = System.nanoTime();
+            for (EmployeeData employee : batch) {
+                emailService.sendEmail(employee);
+            }
+            emailedRows.addAndGet(batch.size());
+            long workEnd = System.nanoTime();
+            emailClock.record(workStart, workEnd, workEnd - workStart);
+        }
+    }
+
+    private static void await(Future<?> stage) throws IOException, InterruptedException {
+        try {
+            stage.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Import stage failed", e.getCause());
+        }
+    }
+
+    // Rows per second over each stage's own active period, plus the time it actually worked.
+    // The stage with the highest busy share is the bottleneck.
+    private void printReport() {
+        System.out.printf("Parsed:  %d rows, %s, rejected %d%n",
+            parsedRows.get(), parseClock.describe(parsedRows.get()), rejectedRows.get());
+        System.out.printf("Saved:   %d rows, %s%n", savedRows.get(), saveClock.describe(savedRows.get()));
+        System.out.printf("Emailed: %d rows, %s%n", emailedRows.get(), emailClock.describe(emailedRows.get()));
+    }
+
+    // Active period of one stage, from its first work to its last, across all of its threads,
+    // plus the time it spent working rather than waiting on a queue
+    private static final class StageClock {
+        private final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong lastEnd = new AtomicLong(Long.MIN_VALUE);
+        private final LongAdder busyNanos = new LongAdder();
+
+        void record(long start, long end, long busy) {
+            firstStart.accumulateAndGet(start, Math::min);
+            lastEnd.accumulateAndGet(end, Math::max);
+            busyNanos.add(busy);
+        }
+
+        String describe(long rows) {
+            long start = firstStart.get();
+            long end = lastEnd.get();
+            if (end <= start) {
+                return "no work";
+            }
+            return String.format("%.0f rows/s over %.0f ms, busy %.0f ms",
+                rows / ((end - start) / 1_000_000_000.0), (end - start) / 1_000_000.0, busyNanos.sum() / 1_000_000.0);
+        }
+    }
+}
+
+// ======= EXTENSION: READ-THROUGH CACHE =======
+
+// Wraps any EmployeeRepository and keeps recently read employees in memory.
+// - Each entry expires after a TTL; unknown emails are cached too (shorter TTL)
+// - Concurrent misses for the same email share a single load
+// - When full, the least frequently read entry of a small random sample is evicted;
+//   read counts halve every maxEntries admissions, so old popularity fades
+// - save() goes to the wrapped repository and drops the cached entry
+class CachedEmployeeRepository extends EmployeeRepository {
+    private static final int EVICTION_SAMPLE_SIZE = 8;
+    private static final int MAX_EVICTION_ROUNDS = 16;
+
+    private final EmployeeRepository delegate;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+
+    private final Map<String, CacheEntry> entries = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<EmployeeData>> loading = new ConcurrentHashMap<>();
+    private final AtomicLong admissions = new AtomicLong();
+
+    // Every cached entry also sits in a random slot here, so eviction can sample uniformly
+    private final AtomicReferenceArray<CacheEntry> slots;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    public CachedEmployeeRepository(EmployeeRepository delegate, int maxEntries,
+                                    long ttl, long negativeTtl, TimeUnit unit) {
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.negativeTtlNanos = unit.toNanos(negativeTtl);
+        this.slots = new AtomicReferenceArray<>(maxEntries * 2 + 64);
+    }
+
+    @Override
+    public void save(EmployeeData employee) {
+        delegate.save(employee);
+        invalidate(employee.getEmail());
+    }
+
+    @Override
+    public void saveAll(List<EmployeeData> employees) {
+        delegate.saveAll(employees);
+        for (EmployeeData employee : employees) {
+            invalidate(employee.getEmail());
+        }
+    }
+
+    @Override
+    public void delete(String email) {
+        delegate.delete(email);
+        invalidate(email);
+    }
+
+    @Override
+    public List<EmployeeData> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public EmployeeData findByEmail(String email) {
+        CacheEntry entry = entries.get(email);
+        if (entry != null && !entry.isExpired(System.nanoTime())) {
+            entry.recordHit(currentEpoch());
+            hits.increment();
+            return entry.employee;
+        }
+        misses.increment();
+        return load(email);
+    }
+
+    public double getHitRate() {
+        long total = hits.sum() + misses.sum();
+        return total == 0 ? 0 : (double) hits.sum() / total;
+    }
+
+    public double getAverageLoadMillis() {
+        long count = loads.sum();
+        return count == 0 ? 0 : loadNanos.sum() / 1_000_000.0 / count;
+    }
+
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    private EmployeeData load(String email) {
+        CompletableFuture<EmployeeData> future = new CompletableFuture<>();
+        CompletableFuture<EmployeeData> inFlight = loading.putIfAbsent(email, future);
+        if (inFlight != null) {
+            return join(inFlight);
+        }
+        try {
+            long start = System.nanoTime();
+            EmployeeData employee = delegate.findByEmail(email);
+            long now = System.nanoTime();
+            loads.increment();
+            loadNanos.add(now - start);
+
+            long ttl = employee == null ? negativeTtlNanos : ttlNanos;
+            CacheEntry entry = new CacheEntry(email, employee, now + ttl, currentEpoch());
+            cache(entry);
+            // A save of this email during the load detaches our future from `loading`, so the
+            // result may be stale. Checking after the put means a save can't slip in between.
+            if (loading.get(email) != future) {
+                uncache(entry);
+            }
+            future.complete(employee);
+            return employee;
+        } catch (Throwable e) {
+            future.completeExceptionally(e); // callers waiting on this load must not hang
+            throw e;
+        } finally {
+            loading.remove(email, future);
+        }
+    }
+
+    private static EmployeeData join(CompletableFuture<EmployeeData> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // The entry goes into `entries` before its slot is published, so anything eviction
+    // can sample is already removable
+    private void cache(CacheEntry entry) {
+        CacheEntry replaced = entries.put(entry.email, entry);
+        if (replaced != null) {
+            freeSlot(replaced);
+        }
+        if (!claimSlot(entry)) {
+            entries.remove(entry.email, entry); // far over capacity; don't keep what eviction can't see
+            return;
+        }
+        if (entries.get(entry.email) != entry) {
+            freeSlot(entry); // invalidated before the slot was published
+        }
+        admissions.incrementAndGet();
+        evictIfFull();
+    }
+
+    private void uncache(CacheEntry entry) {
+        entries.remove(entry.email, entry);
+        freeSlot(entry);
+    }
+
+    // Also detaches any in-flight load, so readers arriving after the save start a fresh one
+    private void invalidate(String email) {
+        loading.remove(email);
+        CacheEntry removed = entries.remove(email);
+        if (removed != null) {
+            freeSlot(removed);
+        }
+    }
+
+    private boolean claimSlot(CacheEntry entry) {
+        int start = ThreadLocalRandom.current().nextInt(slots.length());
+        for (int i = 0; i < slots.length(); i++) {
+            int slot = (start + i) % slots.length();
+            entry.slot = slot; // set before publishing, so an evictor always sees the right slot
+            if (slots.compareAndSet(slot, null, entry)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void freeSlot(CacheEntry entry) {
+        if (entry.slot >= 0) {
+            slots.compareAndSet(entry.slot, entry, null);
+        }
+    }
+
+    private long currentEpoch() {
+        return admissions.get() / Math.max(1, maxEntries);
+    }
+
+    private void evictIfFull() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // Bounded, so a sparse slot array can't keep this thread spinning; later inserts evict again
+        for (int round = 0; round < MAX_EVICTION_ROUNDS && entries.size() > maxEntries; round++) {
+            long now = System.nanoTime();
+            long epoch = currentEpoch();
+            CacheEntry victim = null;
+            int lowestFrequency = Integer.MAX_VALUE;
+            for (int i = 0; i < EVICTION_SAMPLE_SIZE; i++) {
+                CacheEntry candidate = slots.get(random.nextInt(slots.length()));
+                if (candidate == null) continue;
+                if (candidate.isExpired(now)) {
+                    victim = candidate;
+                    break;
+                }
+                int frequency = candidate.frequency(epoch);
+                if (frequency < lowestFrequency) {
+                    lowestFrequency = frequency;
+                    victim = candidate;
+                }
+            }
+            if (victim != null) {
+                uncache(victim);
+            }
+        }
+    }
+
+    private static final class CacheEntry {
+        final String email;
+        final EmployeeData employee; // null means "no employee with this email"
+        final long expiresAt;
+        final AtomicInteger hits = new AtomicInteger();
+        volatile long epoch;
+        volatile int slot = -1;
+
+        CacheEntry(String email, EmployeeData employee, long expiresAt, long epoch) {
+            this.email = email;
+            this.employee = employee;
+            this.expiresAt = expiresAt;
+            this.epoch = epoch;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+
+        // Hit count halved once for every epoch since the entry was last read
+        int frequency(long currentEpoch) {
+            long age = currentEpoch - epoch;
+            return age >= 31 ? 0 : hits.get() >>> age;
+        }
+
+        // Racing readers may decay the count twice; that only makes eviction slightly less exact
+        void recordHit(long currentEpoch) {
+            if (epoch != currentEpoch) {
+                hits.set(frequency(currentEpoch));
+                epoch = currentEpoch;
+            }
+            hits.incrementAndGet();
+        }
+    }
+}
+
+// ======= EXTENSION: SHARDED REPOSITORY =======
+
+// Spreads employees over several repositories using a consistent-hash ring on the email.
+// Adding or removing a shard only moves the emails whose owner changed.
+// That data moves in the background; until it is done, the old ring stays a read fallback.
+// If a move fails, its old ring stays a fallback too, and the next rebalance moves every
+// row that is not on its owner, so nothing stays unreachable.
+class ShardedEmployeeRepository extends EmployeeRepository {
+    private static final int VIRTUAL_NODES_PER_SHARD = 64;
+    private static final int LOCK_STRIPES = 64;
+
+    private final List<EmployeeRepository> shards = new CopyOnWriteArrayList<>();
+    private final List<EmployeeRepository> draining = new CopyOnWriteArrayList<>(); // removed, data not yet moved
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final ExecutorService executor;
+
+    private volatile HashRing ring;
+    private volatile List<HashRing> fallbackRings = new ArrayList<>(); // oldest first; empty when settled
+    private volatile List<EmployeeRepository> movingFrom = new ArrayList<>(); // shards giving up data
+    private Future<?> rebalancing;
+
+    public ShardedEmployeeRepository(List<EmployeeRepository> initialShards, int threads) {
+        if (initialShards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        shards.addAll(initialShards);
+        ring = new HashRing(shards);
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @Override
+    public void save(EmployeeData employee) {
+        String email = employee.getEmail();
+        synchronized (lockFor(email)) {
+            HashRing used = ring;
+            EmployeeRepository owner = used.ownerOf(email);
+            owner.save(employee);
+            // Older copies must go, or a read that checks the old owners first would return them
+            for (HashRing fallback : fallbackRings) {
+                EmployeeRepository oldOwner = fallback.ownerOf(email);
+                if (oldOwner != owner) {
+                    oldOwner.delete(email);
+                }
+            }
+            relocateIfRingChanged(employee, used);
+        }
+    }
+
+    // Groups employees by shard and saves each group in parallel
+    @Override
+    public void saveAll(List<EmployeeData> employees) {
+        HashRing used = ring;
+        if (!fallbackRings.isEmpty()) {
+            super.saveAll(employees);
+            return;
+        }
+        Map<EmployeeRepository, List<EmployeeData>> groups = new HashMap<>();
+        for (EmployeeData employee : employees) {
+            groups.computeIfAbsent(used.ownerOf(employee.getEmail()), shard -> new ArrayList<>()).add(employee);
+        }
+        List<Future<?>> pending = new ArrayList<>();
+        for (Map.Entry<EmployeeRepository, List<EmployeeData>> group : groups.entrySet()) {
+            pending.add(executor.submit(() -> group.getKey().saveAll(group.getValue())));
+        }
+        for (Future<?> future : pending) {
+            await(future);
+        }
+        if (ring != used) {
+            for (EmployeeData employee : employees) {
+                synchronized (lockFor(employee.getEmail())) {
+                    relocateIfRingChanged(employee, used);
+                }
+            }
+        }
+    }
+
+    // A move saves to the new owner before deleting from the old one, so the old owners are
+    // read first and the current owner last; a row in transit is always found on one of them
+    @Override
+    public EmployeeData findByEmail(String email) {
+        HashRing current = ring;
+        EmployeeRepository owner = current.ownerOf(email);
+        for (HashRing fallback : fallbackRings) {
+            EmployeeRepository oldOwner = fallback.ownerOf(email);
+            if (oldOwner != owner) {
+                EmployeeData employee = oldOwner.findByEmail(email);
+                if (employee != null) return employee;
+            }
+        }
+        return owner.findByEmail(email);
+    }
+
+    // Looks up every email on its own shard in parallel; unknown emails are left out
+    public Map<String, EmployeeData> findAllByEmail(Collection<String> emails) {
+        Map<EmployeeRepository, List<String>> groups = new HashMap<>();
+        for (String email : emails) {
+            groups.computeIfAbsent(ring.ownerOf(email), shard -> new ArrayList<>()).add(email);
+        }
+        List<Future<List<EmployeeData>>> pending = new ArrayList<>();
+        for (List<String> group : groups.values()) {
+            pending.add(executor.submit(() -> {
+                List<EmployeeData> found = new ArrayList<>();
+                for (String email : group) {
+                    EmployeeData employee = findByEmail(email);
+                    if (employee != null) found.add(employee);
+                }
+                return found;
+            }));
+        }
+        Map<String, EmployeeData> result = new HashMap<>();
+        for (Future<List<EmployeeData>> future : pending) {
+            for (EmployeeData employee : await(future)) {
+                result.put(employee.getEmail(), employee);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<EmployeeData> findAll() {
+        boolean settled = fallbackRings.isEmpty();
+        List<EmployeeRepository> sources = movingFrom;
+        List<EmployeeRepository> others = new ArrayList<>(shards);
+        others.addAll(draining);
+        if (settled) {
+            return gather(others);
+        }
+        // Same ordering as findByEmail: shards giving up data first, the rest second,
+        // so a row in transit is never missed. It may be seen twice, so results are de-duplicated.
+        others.removeAll(sources);
+        Map<String, EmployeeData> seen = new HashMap<>();
+        List<EmployeeData> result = new ArrayList<>();
+        for (List<EmployeeRepository> phase : List.of(sources, others)) {
+            for (EmployeeData employee : gather(phase)) {
+                if (seen.putIfAbsent(employee.getEmail(), employee) == null) {
+                    result.add(employee);
+                }
+            }
+        }
+        return result;
+    }
+
+    private List<EmployeeData> gather(List<EmployeeRepository> from) {
+        List<Future<List<EmployeeData>>> pending = new ArrayList<>();
+        for (EmployeeRepository shard : from) {
+            pending.add(executor.submit(shard::findAll));
+        }
+        List<EmployeeData> result = new ArrayList<>();
+        for (Future<List<EmployeeData>> future : pending) {
+            result.addAll(await(future));
+        }
+        return result;
+    }
+
+    @Override
+    public void delete(String email) {
+        synchronized (lockFor(email)) {
+            ring.ownerOf(email).delete(email);
+            for (HashRing fallback : fallbackRings) {
+                fallback.ownerOf(email).delete(email);
+            }
+        }
+    }
+
+    // Returns a future that completes when the new shard holds all of its data
+    public synchronized Future<?> addShard(EmployeeRepository shard) {
+        awaitPreviousRebalance();
+        List<EmployeeRepository> sources = new ArrayList<>(shards);
+        shards.add(shard);
+        return rebalance(sources);
+    }
+
+    // Returns a future that completes when the removed shard is empty
+    public synchronized Future<?> removeShard(EmployeeRepository shard) {
+        if (!shards.contains(shard)) {
+            throw new IllegalArgumentException("Not a shard of this repository");
+        }
+        if (shards.size() == 1) {
+            throw new IllegalStateException("Cannot remove the last shard");
+        }
+        awaitPreviousRebalance();
+        shards.remove(shard);
+        draining.add(shard);
+        List<EmployeeRepository> sources = new ArrayList<>();
+        sources.add(shard);
+        return rebalance(sources);
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    // One move at a time keeps the fallback rings well defined. A failed move was already
+    // reported through its own future, so it is not thrown again here.
+    private void awaitPreviousRebalance() {
+        if (rebalancing == null) return;
+        try {
+            rebalancing.get();
+        } catch (ExecutionException e) {
+            // Its rows stay readable through the fallback rings; this rebalance moves them
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for shards", e);
+        }
+    }
+
+    private Future<?> rebalance(List<EmployeeRepository> sources) {
+        if (!fallbackRings.isEmpty()) {
+            // An earlier move failed, so rows may sit on any shard, including drained ones
+            sources = new ArrayList<>(shards);
+            sources.addAll(draining);
+        }
+        List<EmployeeRepository> moveFrom = sources;
+        List<HashRing> fallbacks = new ArrayList<>(fallbackRings);
+        fallbacks.add(ring);
+
+        movingFrom = moveFrom;
+        fallbackRings = fallbacks;
+        ring = new HashRing(shards);
+        rebalancing = executor.submit(() -> {
+            try {
+                for (EmployeeRepository source : moveFrom) {
+                    for (EmployeeData employee : source.findAll()) {
+                        move(employee.getEmail(), source);
+                    }
+                }
+                // Only a complete move retires the fallbacks; after a failure they keep serving reads
+                fallbackRings = new ArrayList<>();
+                draining.removeAll(moveFrom);
+            } finally {
+                movingFrom = new ArrayList<>();
+            }
+        });
+        return rebalancing;
+    }
+
+    private void move(String email, EmployeeRepository source) {
+        synchronized (lockFor(email)) {
+            EmployeeRepository owner = ring.ownerOf(email);
+            if (owner == source) return;
+            // A concurrent save already wrote to the new owner and deleted it here
+            EmployeeData employee = source.findByEmail(email);
+            if (employee == null) return;
+            owner.save(employee);
+            source.delete(email);
+        }
+    }
+
+    // Called under the email's lock after writing with the given ring. If a rebalance
+    // swapped the ring meanwhile, its mover may already have scanned the old owner,
+    // so the row is moved here instead.
+    private void relocateIfRingChanged(EmployeeData employee, HashRing used) {
+        String email = employee.getEmail();
+        EmployeeRepository owner = used.ownerOf(email);
+        while (ring != used) {
+            used = ring;
+            EmployeeRepository newOwner = used.ownerOf(email);
+            if (newOwner != owner) {
+                newOwner.save(employee);
+                owner.delete(email);
+                owner = newOwner;
+            }
+        }
+    }
+
+    private Object lockFor(String email) {
+        return locks[Math.floorMod(email.hashCode(), LOCK_STRIPES)];
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for shards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Shard operation failed", e.getCause());
+        }
+    }
+
+    // Immutable ring; a new one is built whenever the shard list changes
+    private static final class HashRing {
+        private final TreeMap<Integer, EmployeeRepository> nodes = new TreeMap<>();
+
+        HashRing(List<EmployeeRepository> shards) {
+            for (EmployeeRepository shard : shards) {
+                for (int i = 0; i < VIRTUAL_NODES_PER_SHARD; i++) {
+                    nodes.put(mix(System.identityHashCode(shard) * 31 + i), shard);
+                }
+            }
+        }
+
+        EmployeeRepository ownerOf(String email) {
+            Map.Entry<Integer, EmployeeRepository> node = nodes.ceilingEntry(mix(email.hashCode()));
+            return node != null ? node.getValue() : nodes.firstEntry().getValue();
+        }
+
+        // Spreads nearby hash codes across the whole ring
+        private static int mix(int h) {
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            return h ^ (h >>> 16);
+        }
+    }
+}
+
+// ======= EXTENSION: DUPLICATE EMAIL PRE-CHECK =======
+
+// Bloom filter over emails: "no" is always right, "maybe" needs a real lookup.
+// When a layer fills up, a bigger layer with a tighter false-positive rate is added,
+// so the overall rate stays close to the configured one as the population grows.
+class EmailBloomFilter {
+    private static final int FILE_FORMAT_VERSION = 1;
+
+    private final double falsePositiveRate;
+    private final List<Layer> layers = new CopyOnWriteArrayList<>();
+
+    public EmailBloomFilter(long expectedEmails, double falsePositiveRate) {
+        this.falsePositiveRate = falsePositiveRate;
+        layers.add(new Layer(Math.max(1, expectedEmails), falsePositiveRate / 2));
+    }
+
+    private EmailBloomFilter(double falsePositiveRate) {
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    public void add(String email) {
+        long h1 = hash1(email);
+        long h2 = hash2(email);
+        Layer layer = layers.get(layers.size() - 1);
+        if (layer.isFull()) {
+            layer = grow(layer);
+        }
+        layer.add(h1, h2);
+    }
+
+    public boolean mightContain(String email) {
+        long h1 = hash1(email);
+        long h2 = hash2(email);
+        for (Layer layer : layers) {
+            if (layer.mightContain(h1, h2)) return true;
+        }
+        return false;
+    }
+
+    public void writeTo(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(FILE_FORMAT_VERSION);
+            out.writeDouble(falsePositiveRate);
+            List<Layer> snapshot = new ArrayList<>(layers);
+            out.writeInt(snapshot.size());
+            for (Layer layer : snapshot) {
+                layer.writeTo(out);
+            }
+        }
+    }
+
+    public static EmailBloomFilter readFrom(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int version = in.readInt();
+            if (version != FILE_FORMAT_VERSION) {
+                throw new IOException("Unsupported filter file version: " + version);
+            }
+            EmailBloomFilter filter = new EmailBloomFilter(in.readDouble());
+            int layerCount = in.readInt();
+            for (int i = 0; i < layerCount; i++) {
+                filter.layers.add(Layer.readFrom(in));
+            }
+            return filter;
+        }
+    }
+
+    private synchronized Layer grow(Layer full) {
+        Layer last = layers.get(layers.size() - 1);
+        if (last != full) {
+            return last; // another thread already grew the filter
+        }
+        Layer next = new Layer(full.capacity * 2, full.falsePositiveRate / 2);
+        layers.add(next);
+        return next;
+    }
+
+    private static long hash1(String email) {
+        long h = 0xcbf29ce484222325L; // FNV-1a
+        for (int i = 0; i < email.length(); i++) {
+            h ^= email.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static long hash2(String email) {
+        long h = email.hashCode() * 0x9e3779b97f4a7c15L;
+        return (h ^ (h >>> 29)) | 1; // odd, so the probe sequence never repeats early
+    }
+
+    private static final class Layer {
+        final long capacity;
+        final double falsePositiveRate;
+        final int hashCount;
+        final long bitCount;
+        final AtomicLongArray bits;
+        final AtomicLong size = new AtomicLong();
+
+        Layer(long capacity, double falsePositiveRate) {
+            this(capacity, falsePositiveRate, bitsFor(capacity, falsePositiveRate));
+        }
+
+        private Layer(long capacity, double falsePositiveRate, long bitCount) {
+            this.capacity = capacity;
+            this.falsePositiveRate = falsePositiveRate;
+            this.bitCount = bitCount;
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * Math.log(2)));
+            this.bits = new AtomicLongArray((int) ((bitCount + 63) / 64));
+        }
+
+        // m = -n * ln(p) / (ln 2)^2
+        private static long bitsFor(long capacity, double falsePositiveRate) {
+            return Math.max(64, (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2))));
+        }
+
+        boolean isFull() {
+            return size.get() >= capacity;
+        }
+
+        void add(long h1, long h2) {
+            for (int i = 0; i < hashCount; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bitCount);
+                long mask = 1L << bit;
+                bits.getAndAccumulate((int) (bit >>> 6), mask, (word, m) -> word | m);
+            }
+            size.incrementAndGet();
+        }
+
+        boolean mightContain(long h1, long h2) {
+            for (int i = 0; i < hashCount; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bitCount);
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) return false;
+            }
+            return true;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeLong(capacity);
+            out.writeDouble(falsePositiveRate);
+            out.writeLong(bitCount);
+            out.writeLong(size.get());
+            for (int i = 0; i < bits.length(); i++) {
+                out.writeLong(bits.get(i));
+            }
+        }
+
+        static Layer readFrom(DataInputStream in) throws IOException {
+            Layer layer = new Layer(in.readLong(), in.readDouble(), in.readLong());
+            layer.size.set(in.readLong());
+            for (int i = 0; i < layer.bits.length(); i++) {
+                layer.bits.set(i, in.readLong());
+            }
+            return layer;
+        }
+    }
+}
+
+// Keeps an EmailBloomFilter next to a repository.
+// Emails the filter has never seen are answered without touching the repository.
+// A saved filter is only correct if no save reached the repository after it was written,
+// so it is written by saveFilter() at shutdown and consumed (deleted) by open() on startup.
+// A crash therefore leaves no file behind and the next start rebuilds the filter.
+class FilteredEmployeeRepository extends EmployeeRepository {
+    private static final int LOCK_STRIPES = 64;
+
+    private final EmployeeRepository delegate;
+    private final EmailBloomFilter filter;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    // Saves share the read side; saveFilter takes the write side so the bits it writes are complete
+    private final ReentrantReadWriteLock writes = new ReentrantReadWriteLock();
+
+    private final LongAdder definiteMisses = new LongAdder();
+    private final LongAdder filterPasses = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    public FilteredEmployeeRepository(EmployeeRepository delegate, EmailBloomFilter filter) {
+        this.delegate = delegate;
+        this.filter = filter;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    // expectedEmails sizes the first filter layer; pass the population the repository is
+    // expected to reach (e.g. after a bulk import), not just what it holds now
+    public static FilteredEmployeeRepository rebuild(EmployeeRepository delegate,
+                                                     long expectedEmails, double falsePositiveRate) {
+        List<EmployeeData> existing = delegate.findAll();
+        EmailBloomFilter filter = new EmailBloomFilter(Math.max(expectedEmails, existing.size()), falsePositiveRate);
+        for (EmployeeData employee : existing) {
+            filter.add(employee.getEmail());
+        }
+        return new FilteredEmployeeRepository(delegate, filter);
+    }
+
+    // Loads the filter written by the last clean shutdown, or rebuilds it if there is none
+    public static FilteredEmployeeRepository open(EmployeeRepository delegate, Path filterFile,
+                                                  long expectedEmails, double falsePositiveRate) throws IOException {
+        if (!Files.exists(filterFile)) {
+            return rebuild(delegate, expectedEmails, falsePositiveRate);
+        }
+        EmailBloomFilter filter = EmailBloomFilter.readFrom(filterFile);
+        Files.delete(filterFile); // from now on saves make it stale
+        return new FilteredEmployeeRepository(delegate, filter);
+    }
+
+    // Call at shutdown after the last save; saves that arrive meanwhile wait until it is written
+    public void saveFilter(Path filterFile) throws IOException {
+        writes.writeLock().lock();
+        try {
+            filter.writeTo(filterFile);
+        } finally {
+            writes.writeLock().unlock();
+        }
+    }
+
+    // The filter is updated before the repository, so a stored email is never reported absent
+    @Override
+    public void save(EmployeeData employee) {
+        writes.readLock().lock();
+        try {
+            synchronized (lockFor(employee.getEmail())) {
+                filter.add(employee.getEmail());
+                delegate.save(employee);
+            }
+        } finally {
+            writes.readLock().unlock();
+        }
+    }
+
+    // Batched, so not serialized against saveIfAbsent for the same email
+    @Override
+    public void saveAll(List<EmployeeData> employees) {
+        writes.readLock().lock();
+        try {
+            for (EmployeeData employee : employees) {
+                filter.add(employee.getEmail());
+            }
+            delegate.saveAll(employees);
+        } finally {
+            writes.readLock().unlock();
+        }
+    }
+
+    // Saves the employee unless the email is already taken; returns true if it was saved.
+    // The check and the save hold the email's lock, so two callers can't both save it.
+    public boolean saveIfAbsent(EmployeeData employee) {
+        writes.readLock().lock();
+        try {
+            synchronized (lockFor(employee.getEmail())) {
+                if (findByEmail(employee.getEmail()) != null) {
+                    return false;
+                }
+                filter.add(employee.getEmail());
+                delegate.save(employee);
+                return true;
+            }
+        } finally {
+            writes.readLock().unlock();
+        }
+    }
+
+    private Object lockFor(String email) {
+        return locks[Math.floorMod(email.hashCode(), LOCK_STRIPES)];
+    }
+
+    @Override
+    public EmployeeData findByEmail(String email) {
+        if (!filter.mightContain(email)) {
+            definiteMisses.increment();
+            return null;
+        }
+        filterPasses.increment();
+        EmployeeData employee = delegate.findByEmail(email);
+        if (employee == null) {
+            falsePositives.increment();
+        }
+        return employee;
+    }
+
+    @Override
+    public List<EmployeeData> findAll() {
+        return delegate.findAll();
+    }
+
+    // Bloom filters can't forget, so a deleted email keeps costing a lookup
+    @Override
+    public void delete(String email) {
+        delegate.delete(email);
+    }
+
+    public EmailBloomFilter getFilter() {
+        return filter;
+    }
+
+    public long getDefiniteMisses() {
+        return definiteMisses.sum();
+    }
+
+    public long getFilterPasses() {
+        return filterPasses.sum();
+    }
+
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    // Share of lookups that skipped the repository
+    public double getSkipRate() {
+        long total = definiteMisses.sum() + filterPasses.sum();
+        return total == 0 ? 0 : (double) definiteMisses.sum() / total;
+    }
+}
+
+// ======= EXTENSION: TEMPLATED EMAILS =======
+
+// Delivers a rendered message. The buffer goes back to its pool when send() returns,
+// so a transport that sends asynchronously must finish with it first.
+interface EmailTransport {
+    void send(EmployeeData recipient, ByteBuffer message);
+}
+
+// A template such as "Hello {name}, your login is {email}" parsed once into segments.
+// Literal text is encoded up front; fields are encoded straight into the target buffer.
+class EmailTemplate {
+    private enum Field { NAME, EMAIL }
+
+    private final Charset charset;
+    private final List<Object> segments; // byte[] for literal text, Field for placeholders
+
+    private EmailTemplate(Charset charset, List<Object> segments) {
+        this.charset = charset;
+        this.segments = segments;
+    }
+
+    public static EmailTemplate compile(String source, Charset charset) {
+        List<Object> segments = new ArrayList<>();
+        int position = 0;
+        while (position < source.length()) {
+            int open = source.indexOf('{', position);
+            if (open < 0) {
+                segments.add(source.substring(position).getBytes(charset));
+                break;
+            }
+            int close = source.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder at index " + open);
+            }
+            if (open > position) {
+                segments.add(source.substring(position, open).getBytes(charset));
+            }
+            segments.add(fieldFor(source.substring(open + 1, close)));
+            position = close + 1;
+        }
+        return new EmailTemplate(charset, segments);
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    // The encoder must come from getCharset(); callers keep one per thread
+    public void render(EmployeeData employee, ByteBuffer target, CharsetEncoder encoder) {
+        for (Object segment : segments) {
+            if (segment instanceof byte[]) {
+                byte[] literal = (byte[]) segment;
+                if (target.remaining() < literal.length) {
+                    throw new IllegalStateException("Rendered message does not fit in buffer");
+                }
+                target.put(literal);
+            } else {
+                String value = segment == Field.NAME ? employee.getName() : employee.getEmail();
+                encode(value, target, encoder);
+            }
+        }
+    }
+
+    private static void encode(String value, ByteBuffer target, CharsetEncoder encoder) {
+        encoder.reset();
+        CoderResult result = encoder.encode(CharBuffer.wrap(value), target, true);
+        if (!result.isUnderflow()) {
+            failOn(result);
+        }
+        result = encoder.flush(target);
+        if (!result.isUnderflow()) {
+            failOn(result);
+        }
+    }
+
+    private static void failOn(CoderResult result) {
+        if (result.isOverflow()) {
+            throw new IllegalStateException("Rendered message does not fit in buffer");
+        }
+        try {
+            result.throwException();
+        } catch (CharacterCodingException e) {
+            throw new IllegalArgumentException("Field cannot be encoded in template charset", e);
+        }
+    }
+
+    private static Field fieldFor(String placeholder) {
+        switch (placeholder) {
+            case "name": return Field.NAME;
+            case "email": return Field.EMAIL;
+            default: throw new IllegalArgumentException("Unknown placeholder: {" + placeholder + "}");
+        }
+    }
+}
+
+// Fixed set of reusable direct buffers; callers wait when all of them are in use
+class DirectBufferPool {
+    private final BlockingQueue<ByteBuffer> free;
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final AtomicInteger created = new AtomicInteger();
+
+    public DirectBufferPool(int maxBuffers, int bufferSize) {
+        this.free = new ArrayBlockingQueue<>(maxBuffers);
+        this.maxBuffers = maxBuffers;
+        this.bufferSize = bufferSize;
+    }
+
+    public ByteBuffer acquire() throws InterruptedException {
+        ByteBuffer buffer = free.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        if (created.incrementAndGet() <= maxBuffers) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        created.decrementAndGet();
+        return free.take();
+    }
+
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        free.offer(buffer);
+    }
+}
+
+// Renders each email into a pooled buffer and hands that same buffer to the transport
+class TemplatedEmailService extends EmailService {
+    private final EmailTemplate template;
+    private final DirectBufferPool buffers;
+    private final EmailTransport transport;
+    private final ThreadLocal<CharsetEncoder> encoders;
+
+    public TemplatedEmailService(EmailTemplate template, DirectBufferPool buffers, EmailTransport transport) {
+        this.template = template;
+        this.buffers = buffers;
+        this.transport = transport;
+        this.encoders = ThreadLocal.withInitial(() -> template.getCharset().newEncoder());
+    }
+
+    @Override
+    public void sendEmail(EmployeeData employee) {
+        ByteBuffer buffer;
+        try {
+            buffer = buffers.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a message buffer", e);
+        }
+        try {
+            template.render(employee, buffer, encoders.get());
+            buffer.flip();
+            transport.send(employee, buffer);
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+}
+
 /*
 Key Points of Single Responsibility Principle (SRP):
 
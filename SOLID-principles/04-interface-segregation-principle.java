@@ -1,6 +1,35 @@
 // Interface Segregation Principle (ISP)
 // Clients should not be forced to depend on interfaces they do not use
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+
 // BAD EXAMPLE - Violates Interface Segregation Principle
 interface BadPrinter {
     void print();
@@ -64,6 +93,401 @@ class GoodMultiFunctionPrinter implements Printable, Scannable, Faxable {
     }
 }
 
+// ======= EXTENSION: SPOOLED PRINTING =======
+
+// Printable stays as it is; devices that can take a document stream implement this instead
+interface PrintDevice {
+    String getName();
+    WritableByteChannel openJob(String jobName) throws IOException;
+}
+
+interface PrintProgressListener {
+    void onProgress(String jobName, long bytesPrinted, long totalBytes);
+}
+
+// Fake device that "prints" each job into a file, useful for testing
+class FilePrintDevice implements PrintDevice {
+    private final String name;
+    private final Path outputDir;
+
+    public FilePrintDevice(String name, Path outputDir) {
+        this.name = name;
+        this.outputDir = outputDir;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public WritableByteChannel openJob(String jobName) throws IOException {
+        return FileChannel.open(outputDir.resolve(name + "-" + jobName + ".out"),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+}
+
+// Copies each document into a spool file, then streams the spool file to its device
+// with FileChannel.transferTo, so the bytes never pass through the Java heap.
+// Spooling of the next job overlaps with printing of the previous one; each device
+// prints one job at a time and different devices print in parallel.
+// Memory is bounded by a fixed pool of maxWindowsInFlight direct buffers that are reused
+// for every window, and disk by maxJobsPerPrinter spooled-but-unprinted jobs per device.
+class PrintSpooler {
+    private static final long CHUNK_SIZE = 8L << 20;
+
+    private final Path spoolDir;
+    private final PageBufferPool windows;
+    private final int maxJobsPerPrinter;
+    private final ExecutorService spoolers;
+    private final Map<PrintDevice, ExecutorService> printers = new ConcurrentHashMap<>();
+    private final Map<PrintDevice, Semaphore> queuedJobs = new ConcurrentHashMap<>();
+
+    public PrintSpooler(Path spoolDir, int windowSize, int maxWindowsInFlight, int maxJobsPerPrinter, int spoolThreads) {
+        this.spoolDir = spoolDir;
+        this.windows = new PageBufferPool(maxWindowsInFlight, windowSize);
+        this.maxJobsPerPrinter = maxJobsPerPrinter;
+        this.spoolers = Executors.newFixedThreadPool(spoolThreads);
+    }
+
+    // The spooler closes the document once it has been spooled.
+    // The future completes with the number of bytes printed.
+    // Blocks the caller while the device already has maxJobsPerPrinter jobs spooling or waiting,
+    // so spooling can't run ahead of a slow printer.
+    public CompletableFuture<Long> submit(String jobName, ReadableByteChannel document,
+                                          PrintDevice device, PrintProgressListener listener) throws InterruptedException {
+        Semaphore slots = queuedJobs.computeIfAbsent(device, d -> new Semaphore(maxJobsPerPrinter));
+        slots.acquire();
+        try {
+            CompletableFuture<Long> job = CompletableFuture
+                .supplyAsync(() -> spool(jobName, document), spoolers)
+                .thenApplyAsync(spoolFile -> deliver(jobName, spoolFile, device, listener), printerFor(device));
+            job.whenComplete((printed, failure) -> slots.release());
+            return job;
+        } catch (RuntimeException e) {
+            slots.release(); // rejected after shutdown
+            throw e;
+        }
+    }
+
+    public CompletableFuture<Long> submit(String jobName, Path document,
+                                          PrintDevice device, PrintProgressListener listener)
+            throws IOException, InterruptedException {
+        return submit(jobName, FileChannel.open(document, StandardOpenOption.READ), device, listener);
+    }
+
+    public void shutdown() {
+        spoolers.shutdown();
+        for (ExecutorService printer : printers.values()) {
+            printer.shutdown();
+        }
+    }
+
+    private ExecutorService printerFor(PrintDevice device) {
+        return printers.computeIfAbsent(device, d -> Executors.newSingleThreadExecutor());
+    }
+
+    private Path spool(String jobName, ReadableByteChannel document) {
+        Path spoolFile = null;
+        boolean spooled = false;
+        try (ReadableByteChannel source = document) {
+            spoolFile = Files.createTempFile(spoolDir, jobName + "-", ".spool");
+            try (FileChannel spool = FileChannel.open(spoolFile, StandardOpenOption.WRITE)) {
+                boolean endOfDocument = false;
+                while (!endOfDocument) {
+                    ByteBuffer window = windows.acquire();
+                    try {
+                        while (window.hasRemaining()) {
+                            if (source.read(window) < 0) {
+                                endOfDocument = true;
+                                break;
+                            }
+                        }
+                        window.flip();
+                        while (window.hasRemaining()) {
+                            spool.write(window);
+                        }
+                    } finally {
+                        windows.release(window);
+                    }
+                }
+            }
+            spooled = true;
+            return spoolFile;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not spool job " + jobName, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while spooling job " + jobName, e);
+        } finally {
+            if (!spooled && spoolFile != null) {
+                deleteQuietly(spoolFile);
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path spoolFile) {
+        try {
+            Files.deleteIfExists(spoolFile);
+        } catch (IOException e) {
+            // The original failure is more useful to the caller than this one
+        }
+    }
+
+    private long deliver(String jobName, Path spoolFile, PrintDevice device, PrintProgressListener listener) {
+        try {
+            try (FileChannel spool = FileChannel.open(spoolFile, StandardOpenOption.READ);
+                 WritableByteChannel sink = device.openJob(jobName)) {
+                long total = spool.size();
+                long printed = 0;
+                while (printed < total) {
+                    printed += spool.transferTo(printed, Math.min(CHUNK_SIZE, total - printed), sink);
+                    listener.onProgress(jobName, printed, total);
+                }
+                return total;
+            } finally {
+                Files.deleteIfExists(spoolFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not print job " + jobName + " on " + device.getName(), e);
+        }
+    }
+}
+
+// ======= EXTENSION: STREAMING SCANS =======
+
+// Scannable stays as it is; scanners that produce page data implement this instead.
+// Each page is filled into a buffer from the pool and handed to the sink,
+// which releases the buffer back to the pool when it is done with it.
+interface PageScanner {
+    void scanPages(PageBufferPool pool, PageSink sink) throws IOException, InterruptedException;
+}
+
+interface PageSink {
+    void accept(int pageNumber, ByteBuffer page) throws InterruptedException;
+}
+
+// Fixed set of reusable direct buffers; acquire() waits when all of them are in use,
+// which also slows the scanner down when compression falls behind
+class PageBufferPool {
+    private final BlockingQueue<ByteBuffer> free;
+    private final int bufferSize;
+
+    public PageBufferPool(int buffers, int bufferSize) {
+        this.free = new ArrayBlockingQueue<>(buffers);
+        this.bufferSize = bufferSize;
+        for (int i = 0; i < buffers; i++) {
+            free.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public ByteBuffer acquire() throws InterruptedException {
+        return free.take();
+    }
+
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        free.add(buffer);
+    }
+}
+
+// Fake scan head that produces pages of generated data, arriving in fixed-size chunks
+class SyntheticPageScanner implements PageScanner {
+    private final int pages;
+    private final int chunkSize;
+
+    public SyntheticPageScanner(int pages, int chunkSize) {
+        this.pages = pages;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void scanPages(PageBufferPool pool, PageSink sink) throws InterruptedException {
+        for (int pageNumber = 1; pageNumber <= pages; pageNumber++) {
+            ByteBuffer page = pool.acquire();
+            while (page.hasRemaining()) {
+                int chunkEnd = page.position() + Math.min(chunkSize, page.remaining());
+                for (int i = page.position(); i < chunkEnd; i++) {
+                    page.put((byte) ((i / 64 + pageNumber) & 0x0f));
+                }
+            }
+            page.flip();
+            sink.accept(pageNumber, page);
+        }
+    }
+}
+
+// Multi-function device for the streaming paths only: it takes print jobs and produces scans.
+// Print and scan heads share no state, so a print job and a scan can run at the same time.
+class StreamingMultiFunctionPrinter implements PrintDevice, PageScanner {
+    private final PrintDevice printHead;
+    private final PageScanner scanHead;
+
+    public StreamingMultiFunctionPrinter(PrintDevice printHead, PageScanner scanHead) {
+        this.printHead = printHead;
+        this.scanHead = scanHead;
+    }
+
+    @Override
+    public String getName() {
+        return printHead.getName();
+    }
+
+    @Override
+    public WritableByteChannel openJob(String jobName) throws IOException {
+        return printHead.openJob(jobName);
+    }
+
+    @Override
+    public void scanPages(PageBufferPool pool, PageSink sink) throws IOException, InterruptedException {
+        scanHead.scanPages(pool, sink);
+    }
+}
+
+// Compresses pages in parallel and appends them to a file with asynchronous writes.
+// Every record is [page number][compressed length][deflate data]; records may be
+// out of page order. Each page travels in a pooled PageJob that owns its output buffer
+// and is reused as both the compression task and the write handler, so this class
+// allocates nothing per page. The JDK's asynchronous channel still allocates a little
+// per write internally (including the boxed byte count passed to completed()).
+class ScanCompressionPipeline implements PageSink {
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final PageBufferPool pages;
+    private final BlockingQueue<PageJob> freeJobs;
+    private final ExecutorService compressors;
+    private final AsynchronousFileChannel output;
+    private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+
+    private final Phaser inFlight = new Phaser(1);
+    private final AtomicLong writePosition = new AtomicLong();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private final AtomicInteger pageCount = new AtomicInteger();
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private final long startGcMillis = totalGcMillis();
+
+    public ScanCompressionPipeline(Path file, PageBufferPool pages, int buffers, int threads) throws IOException {
+        this.pages = pages;
+        // Deflate can grow incompressible data slightly, so leave some headroom
+        int pageSize = pages.getBufferSize();
+        int recordSize = RECORD_HEADER_SIZE + pageSize + pageSize / 100 + 64;
+        this.freeJobs = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i++) {
+            freeJobs.add(new PageJob(ByteBuffer.allocateDirect(recordSize)));
+        }
+        // An array-backed queue, sized so it never fills: at most `buffers` jobs exist
+        this.compressors = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(buffers));
+        this.output = AsynchronousFileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public void accept(int pageNumber, ByteBuffer page) throws InterruptedException {
+        PageJob job = freeJobs.take();
+        job.pageNumber = pageNumber;
+        job.page = page;
+        inFlight.register();
+        compressors.execute(job);
+    }
+
+    // Waits for every accepted page to reach the file, then prints a report
+    public void finish() throws IOException {
+        inFlight.arriveAndAwaitAdvance();
+        compressors.shutdown();
+        output.close();
+        if (failure.get() != null) {
+            throw new IOException("Scan pipeline failed", failure.get());
+        }
+        double seconds = Math.max(System.nanoTime() - startNanos, 1) / 1_000_000_000.0;
+        System.out.printf("Scanned: %d pages (%.1f pages/s), %d bytes -> %d bytes%n",
+            pageCount.get(), pageCount.get() / seconds, rawBytes.get(), writePosition.get());
+        System.out.printf("GC time during scan: %d ms%n", totalGcMillis() - startGcMillis);
+    }
+
+    private static long totalGcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    // One page on its way to disk: compresses it, then keeps writing until the record is on disk
+    private final class PageJob implements Runnable, CompletionHandler<Integer, PageJob> {
+        private final ByteBuffer record;
+        private int pageNumber;
+        private ByteBuffer page;
+        private long position;
+
+        PageJob(ByteBuffer record) {
+            this.record = record;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int pageBytes = page.remaining();
+                try {
+                    Deflater deflater = deflaters.get();
+                    deflater.reset();
+                    deflater.setInput(page);
+                    deflater.finish();
+                    record.position(RECORD_HEADER_SIZE);
+                    while (!deflater.finished()) {
+                        if (!record.hasRemaining()) {
+                            throw new IllegalStateException("Compressed page " + pageNumber + " does not fit in buffer");
+                        }
+                        deflater.deflate(record);
+                    }
+                } finally {
+                    pages.release(page);
+                    page = null;
+                }
+                record.putInt(0, pageNumber);
+                record.putInt(4, record.position() - RECORD_HEADER_SIZE);
+                record.flip();
+
+                pageCount.incrementAndGet();
+                rawBytes.addAndGet(pageBytes);
+                position = writePosition.getAndAdd(record.remaining());
+                output.write(record, position, this, this);
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+                done();
+            }
+        }
+
+        @Override
+        public void completed(Integer written, PageJob job) {
+            if (record.hasRemaining()) {
+                position += written;
+                output.write(record, position, this, this);
+                return;
+            }
+            done();
+        }
+
+        @Override
+        public void failed(Throwable error, PageJob job) {
+            failure.compareAndSet(null, error);
+            done();
+        }
+
+        private void done() {
+            record.clear();
+            freeJobs.add(this);
+            inFlight.arriveAndDeregister();
+        }
+    }
+}
+
 /*
 Key Points of Interface Segregation Principle (ISP):
 